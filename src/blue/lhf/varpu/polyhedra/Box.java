@@ -21,11 +21,37 @@ import static java.lang.Math.*;
  */
 @SuppressWarnings("unused")
 public final class Box implements Orthotope<Ternion, Box> {
+    /**
+     * The number of doubles in a frame written by {@link Box#frame(double[], int)}.
+     */
+    public static final int FRAME = 15;
+
+    /**
+     * The offset of the centre within a frame, as three doubles.
+     */
+    public static final int FRAME_CENTRE = 0;
+
+    /**
+     * The offset of the unit axes within a frame, as three consecutive triples along {@link Box#a()},
+     * {@link Box#b()}, and {@link Box#c()}.
+     */
+    public static final int FRAME_AXES = 3;
+
+    /**
+     * The offset of the half-extents within a frame, as three doubles along the same axes.
+     */
+    public static final int FRAME_EXTENTS = 12;
+
     private final Ternion origin;
     private final Ternion a;
     private final Ternion b;
     private final Ternion c;
 
+    /**
+     * The centre, unit axes, and half-extents of this box, computed on first use. See {@link Separation}.
+     */
+    private volatile double[] frame;
+
     public Box(final Ternion origin, final Ternion a, final Ternion b, final Ternion c) {
         this.origin = origin;
         this.a = a;
@@ -165,6 +191,64 @@ public final class Box implements Orthotope<Ternion, Box> {
         return true;
     }
 
+    /**
+     * Performs the same separating axis test as {@link Box#intersects(Box)}, but additionally records
+     * the axis of least penetration, the penetration depth, and the contact normal into the given {@link Contact}.
+     * If the contact was constructed to collect a manifold, its contact points are computed as well.
+     *
+     * @param box The box to test against.
+     * @param contact The contact to overwrite with the result of this query.
+     * @return Whether the two boxes intersect.
+     */
+    public boolean intersects(final Box box, final Contact contact) {
+        return Separation.penetration(frame(), box.frame(), contact);
+    }
+
+    /**
+     * @return The distance from the given point to the surface of this box, or zero if the point is inside.
+     */
+    public double distance(final Ternion point) {
+        return Separation.distance(frame(), point.x(), point.y(), point.z());
+    }
+
+    /**
+     * @return The distance between the surfaces of this box and the given box, or zero if they intersect.
+     */
+    public double distance(final Box box) {
+        return Separation.distance(frame(), box.frame());
+    }
+
+    /**
+     * Finds an axis separating this box from the given box, testing the hinted axis before any other.
+     * Passing the axis returned for the same pair on a previous call usually lets this return after a single
+     * projection when the boxes have moved only slightly.
+     *
+     * @param box The box to test against.
+     * @param hint The index of the axis to test first, as numbered by {@link Contact#axis()}, or -1 for no hint.
+     * @return The index of an axis separating the boxes, or -1 if they intersect.
+     */
+    public int separatingAxis(final Box box, final int hint) {
+        return Separation.separatingAxis(frame(), box.frame(), hint);
+    }
+
+    /**
+     * Copies the primitive frame of this box into {@code out} at {@code offset}: {@link Box#FRAME} doubles holding
+     * the centre at {@link Box#FRAME_CENTRE}, the unit vectors along {@link Box#a()}, {@link Box#b()}, and
+     * {@link Box#c()} at {@link Box#FRAME_AXES}, and the half-extents at {@link Box#FRAME_EXTENTS}.
+     * A zero-length edge is given the matching world axis as its unit vector.
+     * The frame is computed once per box, so repeated calls cost a copy.
+     */
+    public void frame(final double[] out, final int offset) {
+        System.arraycopy(frame(), 0, out, offset, FRAME);
+    }
+
+    double[] frame() {
+        // Boxes are immutable, so racing threads at worst compute the same frame twice.
+        double[] frame = this.frame;
+        if (frame == null) this.frame = frame = Separation.frame(this);
+        return frame;
+    }
+
     private boolean hasSeparatingPlane(
         final Ternion centreDiff,
         final Ternion plane,
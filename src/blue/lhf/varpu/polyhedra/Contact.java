@@ -0,0 +1,121 @@
+package blue.lhf.varpu.polyhedra;
+
+import blue.lhf.varpu.vector.Ternion;
+
+import static blue.lhf.varpu.vector.Ternion.ternion;
+
+/**
+ * <p>
+ * A reusable record of how two boxes overlap, filled in by {@link Box#intersects(Box, Contact)}.
+ * </p>
+ * <p>
+ * A contact holds the axis of least penetration found during the separating axis test,
+ * the penetration depth along that axis, and the contact normal, which points from the
+ * queried box towards the other. Contacts constructed with {@code manifold} set also
+ * collect up to eight contact points, found by clipping the incident face against the reference face.
+ * To keep the points stable from one query to the next, the reference face is chosen with a slight preference
+ * for faces of the queried box, so it may lie on a different axis than {@link Contact#axis()} when two axes
+ * have almost the same depth; the axis, depth, and normal themselves are always the true minimum.
+ * </p>
+ * <p>
+ * The same contact may be passed to any number of queries; each query overwrites the previous result.
+ * </p>
+ */
+public final class Contact {
+    private final boolean manifold;
+    private final double[] points = new double[3 * 8];
+    private int size;
+
+    private int axis = -1;
+    private double depth;
+    private double nx, ny, nz;
+
+    public Contact() {
+        this(false);
+    }
+
+    /**
+     * @param manifold Whether queries should also compute contact points.
+     */
+    public Contact(final boolean manifold) {
+        this.manifold = manifold;
+    }
+
+    void reset() {
+        axis = -1;
+        depth = 0;
+        nx = ny = nz = 0;
+        size = 0;
+    }
+
+    void set(final int axis, final double depth, final double nx, final double ny, final double nz) {
+        this.axis = axis;
+        this.depth = depth;
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+    }
+
+    void add(final double x, final double y, final double z) {
+        if (size == 8) return;
+        points[3 * size] = x;
+        points[3 * size + 1] = y;
+        points[3 * size + 2] = z;
+        ++size;
+    }
+
+    public boolean manifold() {
+        return manifold;
+    }
+
+    /**
+     * @return The index of the axis of least penetration, or -1 if the last query found no intersection.
+     * Indices {@code 0..2} are the face normals of the queried box, {@code 3..5} those of the other box,
+     * and {@code 6 + 3i + j} is the cross product of their {@code i}th and {@code j}th edges.
+     */
+    public int axis() {
+        return axis;
+    }
+
+    /**
+     * @return The distance the other box must be moved along {@link Contact#normal()} to resolve the overlap.
+     */
+    public double depth() {
+        return depth;
+    }
+
+    /**
+     * @return The unit contact normal, pointing from the queried box towards the other.
+     */
+    public Ternion normal() {
+        return ternion(nx, ny, nz);
+    }
+
+    /**
+     * @return The minimum translation vector, i.e. the normal scaled by the depth.
+     */
+    public Ternion translation() {
+        return ternion(nx * depth, ny * depth, nz * depth);
+    }
+
+    /**
+     * @return The number of contact points, always zero if this contact does not collect a manifold.
+     */
+    public int size() {
+        return size;
+    }
+
+    public Ternion point(final int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return ternion(points[3 * index], points[3 * index + 1], points[3 * index + 2]);
+    }
+
+    @Override
+    public String toString() {
+        return "Contact[" +
+            "axis=" + axis + ", " +
+            "depth=" + depth + ", " +
+            "normal=" + normal() + ", " +
+            "size=" + size + ']';
+    }
+}
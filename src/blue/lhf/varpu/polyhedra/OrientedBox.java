@@ -0,0 +1,291 @@
+package blue.lhf.varpu.polyhedra;
+
+import blue.lhf.varpu.vector.*;
+
+import static blue.lhf.varpu.vector.Quaternion.pure;
+import static blue.lhf.varpu.vector.Quaternion.quaternion;
+import static blue.lhf.varpu.vector.Ternion.ternion;
+import static java.lang.Math.*;
+
+/**
+ * <p>
+ * A compact form of {@link Box}, stored as a centre, three half-extents, and a unit {@link Quaternion} orientation.
+ * </p>
+ * <p>
+ * Where a box derives its centre, extents, and axes from its edges with square roots on every use, an oriented box
+ * holds them directly in ten doubles, and its axes follow from the orientation with a handful of multiplications,
+ * done once on first use.
+ * Rotating an oriented box is a single quaternion product rather than the rotation of three edges.
+ * </p>
+ * <p>
+ * Oriented boxes convert to and from boxes with {@link OrientedBox#orientedBox(Box)} and {@link OrientedBox#toBox()}.
+ * The conversion preserves the origin and edges of any box whose edges form a right-handed system, as boxes built
+ * through {@link Box#box(Ternion, Ternion, Quaternion)} do; boxes with left-handed edges are converted to the box
+ * covering the same space with its third edge reversed.
+ * </p>
+ */
+@SuppressWarnings("unused")
+public final class OrientedBox {
+    private final double x, y, z;
+    private final double hx, hy, hz;
+    private final Quaternion orientation;
+
+    /**
+     * The centre, unit axes, and half-extents of this box, computed on first use. See {@link Separation}.
+     */
+    private volatile double[] frame;
+
+    /**
+     * @param centre The centre of the box.
+     * @param halves The half-extents of the box along its own axes.
+     * @param orientation The rotation from the world axes to the box' axes. Need not be of unit length.
+     */
+    public OrientedBox(final Ternion centre, final Ternion halves, final Quaternion orientation) {
+        this(centre.x(), centre.y(), centre.z(), halves.x(), halves.y(), halves.z(), unit(orientation));
+    }
+
+    private OrientedBox(final double x, final double y, final double z,
+                        final double hx, final double hy, final double hz, final Quaternion orientation) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.hx = abs(hx);
+        this.hy = abs(hy);
+        this.hz = abs(hz);
+        this.orientation = orientation;
+    }
+
+    private static Quaternion unit(final Quaternion orientation) {
+        if (orientation.normSq() == 0) throw new IllegalArgumentException("Orientation must be non-zero");
+        return orientation.versor();
+    }
+
+    /**
+     * @return An oriented box covering the same space as the given box.
+     */
+    public static OrientedBox orientedBox(final Box box) {
+        final Ternion[] axes = basis(box.originalEdges());
+        final Ternion centre = box.centre();
+        return new OrientedBox(
+            centre.x(), centre.y(), centre.z(),
+            box.a().length() / 2, box.b().length() / 2, box.c().length() / 2,
+            rotation(axes[0], axes[1], axes[2])
+        );
+    }
+
+    /**
+     * @return A right-handed orthonormal basis whose axes point along the given edges, where they are non-zero.
+     */
+    private static Ternion[] basis(final Ternion[] edges) {
+        final Ternion[] axes = new Ternion[3];
+        int known = 0;
+        for (int i = 0; i < 3; ++i) {
+            if (edges[i].dot(edges[i]) == 0) continue;
+            axes[i] = edges[i].normalised();
+            ++known;
+        }
+
+        if (known == 0) return new Ternion[]{ternion(1, 0, 0), ternion(0, 1, 0), ternion(0, 0, 1)};
+        if (known == 1) {
+            final int i = axes[0] != null ? 0 : axes[1] != null ? 1 : 2;
+            final Ternion axis = axes[i];
+            final Ternion helper = abs(axis.x()) < 0.9 ? ternion(1, 0, 0) : ternion(0, 1, 0);
+            axes[(i + 1) % 3] = axis.cross(helper).normalised();
+        }
+
+        for (int i = 0; i < 3; ++i) {
+            if (axes[i] == null) axes[i] = axes[(i + 1) % 3].cross(axes[(i + 2) % 3]);
+        }
+
+        if (axes[0].cross(axes[1]).dot(axes[2]) < 0) axes[2] = axes[2].inverse();
+        return axes;
+    }
+
+    /**
+     * @return The unit quaternion whose rotation matrix has the given columns.
+     */
+    private static Quaternion rotation(final Ternion u, final Ternion v, final Ternion w) {
+        final double m00 = u.x(), m10 = u.y(), m20 = u.z();
+        final double m01 = v.x(), m11 = v.y(), m21 = v.z();
+        final double m02 = w.x(), m12 = w.y(), m22 = w.z();
+        final double trace = m00 + m11 + m22;
+
+        final Quaternion q;
+        if (trace > 0) {
+            final double s = sqrt(trace + 1) * 2;
+            q = quaternion(s / 4, (m21 - m12) / s, (m02 - m20) / s, (m10 - m01) / s);
+        } else if (m00 > m11 && m00 > m22) {
+            final double s = sqrt(1 + m00 - m11 - m22) * 2;
+            q = quaternion((m21 - m12) / s, s / 4, (m01 + m10) / s, (m02 + m20) / s);
+        } else if (m11 > m22) {
+            final double s = sqrt(1 + m11 - m00 - m22) * 2;
+            q = quaternion((m02 - m20) / s, (m01 + m10) / s, s / 4, (m12 + m21) / s);
+        } else {
+            final double s = sqrt(1 + m22 - m00 - m11) * 2;
+            q = quaternion((m10 - m01) / s, (m02 + m20) / s, (m12 + m21) / s, s / 4);
+        }
+
+        return q.versor();
+    }
+
+    /**
+     * @return The box covering the same space as this oriented box.
+     */
+    public Box toBox() {
+        final double[] frame = frame();
+        final Ternion a = ternion(frame[3], frame[4], frame[5]).product(2 * hx);
+        final Ternion b = ternion(frame[6], frame[7], frame[8]).product(2 * hy);
+        final Ternion c = ternion(frame[9], frame[10], frame[11]).product(2 * hz);
+        return new Box(origin(frame), a, b, c);
+    }
+
+    /**
+     * @return The vertex of this box that {@link OrientedBox#toBox()} uses as the box' origin.
+     */
+    public Ternion origin() {
+        return origin(frame());
+    }
+
+    private Ternion origin(final double[] frame) {
+        return ternion(
+            x - frame[3] * hx - frame[6] * hy - frame[9] * hz,
+            y - frame[4] * hx - frame[7] * hy - frame[10] * hz,
+            z - frame[5] * hx - frame[8] * hy - frame[11] * hz
+        );
+    }
+
+    /**
+     * @param offset The ternion by which to offset the box' centre.
+     * @return An oriented box equivalent to this one with its centre offset by the given {@link Ternion}.
+     */
+    public OrientedBox offset(final Ternion offset) {
+        return new OrientedBox(x + offset.x(), y + offset.y(), z + offset.z(), hx, hy, hz, orientation);
+    }
+
+    public OrientedBox centred(final Ternion centre) {
+        return new OrientedBox(centre.x(), centre.y(), centre.z(), hx, hy, hz, orientation);
+    }
+
+    /**
+     * @param rotation The unit quaternion rotation to apply.
+     * @return An oriented box equivalent to this one rotated around its <b>centre</b> by the given quaternion rotation.
+     * @see OrientedBox#transform(Quaternion)
+     */
+    public OrientedBox rotated(final Quaternion rotation) {
+        return new OrientedBox(x, y, z, hx, hy, hz, rotation.product(orientation));
+    }
+
+    /**
+     * @param rotation The unit quaternion rotation to apply.
+     * @return An oriented box equivalent to this one rotated around its <b>origin</b> by the given quaternion rotation,
+     * matching {@link Box#transform(Quaternion)}.
+     * @see OrientedBox#rotated(Quaternion)
+     */
+    public OrientedBox transform(final Quaternion rotation) {
+        final Ternion origin = origin();
+        final Ternion arm = ternion(x, y, z).difference(origin);
+        final Ternion rotated = rotation.product(pure(arm)).product(rotation.conjugate()).toTernion();
+        return new OrientedBox(
+            origin.x() + rotated.x(), origin.y() + rotated.y(), origin.z() + rotated.z(),
+            hx, hy, hz, rotation.product(orientation)
+        );
+    }
+
+    public boolean intersects(final OrientedBox box) {
+        return Separation.separatingAxis(frame(), box.frame(), -1) < 0;
+    }
+
+    public boolean intersects(final Box box) {
+        return Separation.separatingAxis(frame(), box.frame(), -1) < 0;
+    }
+
+    /**
+     * @see Box#intersects(Box, Contact)
+     */
+    public boolean intersects(final OrientedBox box, final Contact contact) {
+        return Separation.penetration(frame(), box.frame(), contact);
+    }
+
+    /**
+     * @see Box#intersects(Box, Contact)
+     */
+    public boolean intersects(final Box box, final Contact contact) {
+        return Separation.penetration(frame(), box.frame(), contact);
+    }
+
+    /**
+     * @return The distance from the given point to the surface of this box, or zero if the point is inside.
+     */
+    public double distance(final Ternion point) {
+        return Separation.distance(frame(), point.x(), point.y(), point.z());
+    }
+
+    double[] frame() {
+        // Oriented boxes are immutable, so racing threads at worst compute the same frame twice.
+        double[] frame = this.frame;
+        if (frame == null) this.frame = frame = Separation.frame(x, y, z, hx, hy, hz, orientation);
+        return frame;
+    }
+
+    public Ternion centre() {
+        return ternion(x, y, z);
+    }
+
+    /**
+     * @return The half-extents of this box along its own axes.
+     */
+    public Ternion halves() {
+        return ternion(hx, hy, hz);
+    }
+
+    public Quaternion orientation() {
+        return orientation;
+    }
+
+    /**
+     * @return The volume of this {@link OrientedBox}.
+     */
+    public double volume() {
+        return 8 * hx * hy * hz;
+    }
+
+    public boolean isSimilar(final OrientedBox that, final double error) {
+        return toBox().isSimilar(that.toBox(), error);
+    }
+
+    @Override
+    public String toString() {
+        return "OrientedBox[" +
+            "centre=" + centre() + ", " +
+            "halves=" + halves() + ", " +
+            "orientation=" + orientation + ']';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        OrientedBox box = (OrientedBox) o;
+
+        if (Double.compare(box.x, x) != 0) return false;
+        if (Double.compare(box.y, y) != 0) return false;
+        if (Double.compare(box.z, z) != 0) return false;
+        if (Double.compare(box.hx, hx) != 0) return false;
+        if (Double.compare(box.hy, hy) != 0) return false;
+        if (Double.compare(box.hz, hz) != 0) return false;
+        return orientation.equals(box.orientation);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(x);
+        result = 31 * result + Double.hashCode(y);
+        result = 31 * result + Double.hashCode(z);
+        result = 31 * result + Double.hashCode(hx);
+        result = 31 * result + Double.hashCode(hy);
+        result = 31 * result + Double.hashCode(hz);
+        result = 31 * result + orientation.hashCode();
+        return result;
+    }
+}
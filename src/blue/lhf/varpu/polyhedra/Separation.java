@@ -0,0 +1,472 @@
+package blue.lhf.varpu.polyhedra;
+
+import blue.lhf.varpu.vector.Quaternion;
+import blue.lhf.varpu.vector.Ternion;
+
+import static java.lang.Math.*;
+
+/**
+ * <p>
+ * Primitive separating axis tests between oriented boxes.
+ * </p>
+ * <p>
+ * Boxes are passed around as <i>frames</i>: flat arrays of fifteen doubles holding the centre,
+ * the three unit axes, and the three half-extents of the box, in that order. Working on frames
+ * rather than {@link Ternion}s lets a single pass over the fifteen candidate axes run without
+ * allocating.
+ * </p>
+ * <p>
+ * Axes are indexed as follows: {@code 0..2} are the face normals of the first box, {@code 3..5}
+ * the face normals of the second, and {@code 6 + 3i + j} is the cross product of the first box'
+ * {@code i}th axis with the second box' {@code j}th axis.
+ * </p>
+ */
+final class Separation {
+    static final int AXES = 15;
+    static final int FRAME = Box.FRAME;
+
+    private static final int CENTRE = Box.FRAME_CENTRE;
+    private static final int AXIS = Box.FRAME_AXES;
+    private static final int EXTENT = Box.FRAME_EXTENTS;
+
+    /**
+     * When choosing the reference axis for a contact manifold, edge-edge and second-box face axes must beat
+     * the current best overlap by this factor to replace it, which keeps the manifold stable when several axes
+     * have almost the same depth. The reported axis and depth are always the true minimum.
+     * An edge-edge reference axis is only kept if its supporting edges come within this factor of crossing.
+     */
+    private static final double RELATIVE_TOLERANCE = 0.95;
+    private static final double PARALLEL = 1E-6;
+
+    private Separation() {
+    }
+
+    static double[] frame(final Box box) {
+        final double[] frame = new double[FRAME];
+        final Ternion centre = box.centre();
+        frame[CENTRE] = centre.x();
+        frame[CENTRE + 1] = centre.y();
+        frame[CENTRE + 2] = centre.z();
+
+        final Ternion[] edges = box.originalEdges();
+        for (int i = 0; i < 3; ++i) {
+            final Ternion edge = edges[i];
+            final double length = sqrt(edge.dot(edge));
+            frame[EXTENT + i] = length / 2;
+            if (length == 0) {
+                frame[AXIS + 3 * i + i] = 1;
+                continue;
+            }
+
+            frame[AXIS + 3 * i] = edge.x() / length;
+            frame[AXIS + 3 * i + 1] = edge.y() / length;
+            frame[AXIS + 3 * i + 2] = edge.z() / length;
+        }
+
+        return frame;
+    }
+
+    /**
+     * Builds a frame from a unit quaternion orientation without any square roots: the axes are the
+     * columns of the quaternion's rotation matrix.
+     */
+    static double[] frame(final double cx, final double cy, final double cz,
+                          final double hx, final double hy, final double hz, final Quaternion orientation) {
+        final double r = orientation.r(), x = orientation.x(), y = orientation.y(), z = orientation.z();
+        return new double[]{
+            cx, cy, cz,
+            1 - 2 * (y * y + z * z), 2 * (x * y + r * z), 2 * (x * z - r * y),
+            2 * (x * y - r * z), 1 - 2 * (x * x + z * z), 2 * (y * z + r * x),
+            2 * (x * z + r * y), 2 * (y * z - r * x), 1 - 2 * (x * x + y * y),
+            hx, hy, hz
+        };
+    }
+
+    /**
+     * @param hint The axis to test first, or a negative value to test in index order.
+     * @return The index of an axis separating the two frames, or {@code -1} if they intersect.
+     */
+    static int separatingAxis(final double[] a, final double[] b, final int hint) {
+        final double[] l = new double[3];
+        if (hint >= 0 && hint < AXES && separates(a, b, hint, l)) return hint;
+        for (int axis = 0; axis < AXES; ++axis) {
+            if (axis != hint && separates(a, b, axis, l)) return axis;
+        }
+
+        return -1;
+    }
+
+    private static boolean separates(final double[] a, final double[] b, final int axis, final double[] l) {
+        if (!axis(a, b, axis, l)) return false;
+        return overlap(a, b, l[0], l[1], l[2]) < 0;
+    }
+
+    /**
+     * Runs the full separating axis test, recording the axis of least penetration, its depth, and the
+     * matching normal into the given contact.
+     * If the contact requests a manifold, the contact points are found by clipping the incident face against
+     * the reference face. The reference axis is chosen with a bias towards face axes of the first box, so it
+     * may differ from the reported axis when several axes have almost the same depth.
+     *
+     * @return Whether the two frames intersect.
+     */
+    static boolean penetration(final double[] a, final double[] b, final Contact contact) {
+        contact.reset();
+
+        final double[] l = new double[3];
+        double least = Double.POSITIVE_INFINITY, biased = Double.POSITIVE_INFINITY;
+        double faceBiased = Double.POSITIVE_INFINITY;
+        int leastAxis = -1, reference = -1, face = -1;
+        double nx = 0, ny = 0, nz = 0;
+        double rx = 0, ry = 0, rz = 0;
+        double fx = 0, fy = 0, fz = 0;
+
+        for (int axis = 0; axis < AXES; ++axis) {
+            if (!axis(a, b, axis, l)) continue;
+
+            final double overlap = overlap(a, b, l[0], l[1], l[2]);
+            if (overlap < 0) return false;
+
+            final double d = (b[CENTRE] - a[CENTRE]) * l[0]
+                + (b[CENTRE + 1] - a[CENTRE + 1]) * l[1]
+                + (b[CENTRE + 2] - a[CENTRE + 2]) * l[2];
+            final double sign = d < 0 ? -1 : 1;
+
+            if (overlap < least) {
+                least = overlap;
+                leastAxis = axis;
+                nx = l[0] * sign;
+                ny = l[1] * sign;
+                nz = l[2] * sign;
+            }
+
+            if (overlap < (axis < 3 ? biased : biased * RELATIVE_TOLERANCE)) {
+                biased = overlap;
+                reference = axis;
+                rx = l[0] * sign;
+                ry = l[1] * sign;
+                rz = l[2] * sign;
+            }
+
+            if (axis < 6 && overlap < (axis < 3 ? faceBiased : faceBiased * RELATIVE_TOLERANCE)) {
+                faceBiased = overlap;
+                face = axis;
+                fx = l[0] * sign;
+                fy = l[1] * sign;
+                fz = l[2] * sign;
+            }
+        }
+
+        contact.set(leastAxis, least, nx, ny, nz);
+        if (!contact.manifold()) return true;
+
+        if (reference >= 6) {
+            if (edges(a, b, (reference - 6) / 3, (reference - 6) % 3, rx, ry, rz, biased, contact)) return true;
+
+            // The supporting edges do not actually meet, so the boxes touch face first.
+            reference = face;
+            rx = fx;
+            ry = fy;
+            rz = fz;
+        }
+
+        if (reference < 3) {
+            clip(a, b, reference, rx, ry, rz, contact);
+        } else {
+            clip(b, a, reference - 3, -rx, -ry, -rz, contact);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The distance from the given point to the frame, or zero if the point is inside.
+     */
+    static double distance(final double[] frame, final double x, final double y, final double z) {
+        final double dx = x - frame[CENTRE], dy = y - frame[CENTRE + 1], dz = z - frame[CENTRE + 2];
+        double sq = 0;
+        for (int i = 0; i < 3; ++i) {
+            final double excess = abs(dot(frame, i, dx, dy, dz)) - frame[EXTENT + i];
+            if (excess > 0) sq += excess * excess;
+        }
+
+        return sqrt(sq);
+    }
+
+    /**
+     * @return The distance between the two frames, or zero if they intersect.
+     */
+    static double distance(final double[] a, final double[] b) {
+        if (separatingAxis(a, b, -1) < 0) return 0;
+
+        // The closest points of two disjoint boxes are either a vertex and the other box, or two edges.
+        double best = Double.POSITIVE_INFINITY;
+        final double[] point = new double[3];
+        for (int corner = 0; corner < 8; ++corner) {
+            vertex(a, corner, point);
+            best = min(best, distance(b, point[0], point[1], point[2]));
+            vertex(b, corner, point);
+            best = min(best, distance(a, point[0], point[1], point[2]));
+        }
+
+        final double[] p = new double[3], q = new double[3];
+        for (int i = 0; i < 12; ++i) {
+            edge(a, i, p);
+            for (int j = 0; j < 12; ++j) {
+                edge(b, j, q);
+                best = min(best, segments(a, i / 4, p, b, j / 4, q));
+            }
+        }
+
+        return best;
+    }
+
+    private static void vertex(final double[] frame, final int corner, final double[] out) {
+        for (int c = 0; c < 3; ++c) out[c] = frame[CENTRE + c];
+        for (int i = 0; i < 3; ++i) {
+            final double s = (corner >> i & 1) == 0 ? -1 : 1;
+            for (int c = 0; c < 3; ++c) out[c] += frame[AXIS + 3 * i + c] * frame[EXTENT + i] * s;
+        }
+    }
+
+    /**
+     * Writes the midpoint of the given edge into {@code out}. Edges {@code 4m..4m+3} run along axis {@code m}.
+     */
+    private static void edge(final double[] frame, final int edge, final double[] out) {
+        final int axis = edge / 4;
+        final int p = (axis + 1) % 3, q = (axis + 2) % 3;
+        final double sp = (edge & 1) == 0 ? -1 : 1, sq = (edge & 2) == 0 ? -1 : 1;
+        for (int c = 0; c < 3; ++c) {
+            out[c] = frame[CENTRE + c]
+                + frame[AXIS + 3 * p + c] * frame[EXTENT + p] * sp
+                + frame[AXIS + 3 * q + c] * frame[EXTENT + q] * sq;
+        }
+    }
+
+    /**
+     * @return The distance between the edge of {@code a} along axis {@code i} with midpoint {@code p}
+     * and the edge of {@code b} along axis {@code j} with midpoint {@code q}.
+     */
+    private static double segments(final double[] a, final int i, final double[] p,
+                                   final double[] b, final int j, final double[] q) {
+        final double[] st = new double[2];
+        closest(a, i, p, b, j, q, st);
+
+        final int u = AXIS + 3 * i, v = AXIS + 3 * j;
+        final double dx = p[0] - q[0] + a[u] * st[0] - b[v] * st[1];
+        final double dy = p[1] - q[1] + a[u + 1] * st[0] - b[v + 1] * st[1];
+        final double dz = p[2] - q[2] + a[u + 2] * st[0] - b[v + 2] * st[1];
+        return sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Finds the closest points between the edge of {@code a} along axis {@code i} with midpoint {@code p}
+     * and the edge of {@code b} along axis {@code j} with midpoint {@code q}, writing their offsets from the
+     * midpoints along the edges into {@code out}.
+     */
+    private static void closest(final double[] a, final int i, final double[] p,
+                                final double[] b, final int j, final double[] q, final double[] out) {
+        final int u = AXIS + 3 * i, v = AXIS + 3 * j;
+        final double ea = a[EXTENT + i], eb = b[EXTENT + j];
+        final double rx = p[0] - q[0], ry = p[1] - q[1], rz = p[2] - q[2];
+        final double uv = a[u] * b[v] + a[u + 1] * b[v + 1] + a[u + 2] * b[v + 2];
+        final double ur = a[u] * rx + a[u + 1] * ry + a[u + 2] * rz;
+        final double vr = b[v] * rx + b[v + 1] * ry + b[v + 2] * rz;
+        final double denominator = 1 - uv * uv;
+
+        double s = denominator > PARALLEL ? max(-ea, min(ea, (uv * vr - ur) / denominator)) : 0;
+        double t = vr + s * uv;
+        if (t < -eb || t > eb) {
+            t = max(-eb, min(eb, t));
+            s = max(-ea, min(ea, t * uv - ur));
+        }
+
+        out[0] = s;
+        out[1] = t;
+    }
+
+    /**
+     * Writes the unit direction of the given axis into {@code out}.
+     *
+     * @return Whether the axis is usable, i.e. is not the cross product of two parallel edges.
+     */
+    private static boolean axis(final double[] a, final double[] b, final int axis, final double[] out) {
+        if (axis < 6) {
+            final double[] frame = axis < 3 ? a : b;
+            final int u = AXIS + 3 * (axis % 3);
+            out[0] = frame[u];
+            out[1] = frame[u + 1];
+            out[2] = frame[u + 2];
+            return true;
+        }
+
+        final int u = AXIS + 3 * ((axis - 6) / 3);
+        final int v = AXIS + 3 * ((axis - 6) % 3);
+        final double x = a[u + 1] * b[v + 2] - a[u + 2] * b[v + 1];
+        final double y = a[u + 2] * b[v] - a[u] * b[v + 2];
+        final double z = a[u] * b[v + 1] - a[u + 1] * b[v];
+        final double length = sqrt(x * x + y * y + z * z);
+        if (length < PARALLEL) return false;
+
+        out[0] = x / length;
+        out[1] = y / length;
+        out[2] = z / length;
+        return true;
+    }
+
+    private static double overlap(final double[] a, final double[] b, final double lx, final double ly, final double lz) {
+        final double d = (b[CENTRE] - a[CENTRE]) * lx
+            + (b[CENTRE + 1] - a[CENTRE + 1]) * ly
+            + (b[CENTRE + 2] - a[CENTRE + 2]) * lz;
+        return radius(a, lx, ly, lz) + radius(b, lx, ly, lz) - abs(d);
+    }
+
+    private static double radius(final double[] frame, final double lx, final double ly, final double lz) {
+        double radius = 0;
+        for (int i = 0; i < 3; ++i) {
+            final int u = AXIS + 3 * i;
+            radius += frame[EXTENT + i] * abs(frame[u] * lx + frame[u + 1] * ly + frame[u + 2] * lz);
+        }
+
+        return radius;
+    }
+
+    private static double dot(final double[] frame, final int axis, final double x, final double y, final double z) {
+        final int u = AXIS + 3 * axis;
+        return frame[u] * x + frame[u + 1] * y + frame[u + 2] * z;
+    }
+
+    /**
+     * Clips the face of {@code incident} most opposed to {@code n} against the side planes of the
+     * face of {@code reference} along axis {@code face}, keeping the points that lie beneath the reference face.
+     *
+     * @param n The contact normal, pointing out of the reference box towards the incident box.
+     */
+    private static void clip(final double[] reference, final double[] incident, final int face,
+                             final double nx, final double ny, final double nz, final Contact contact) {
+
+        int incidentFace = 0;
+        double most = -1;
+        for (int j = 0; j < 3; ++j) {
+            final double alignment = abs(dot(incident, j, nx, ny, nz));
+            if (alignment > most) {
+                most = alignment;
+                incidentFace = j;
+            }
+        }
+
+        // The incident face points back towards the reference box.
+        final double facing = dot(incident, incidentFace, nx, ny, nz) > 0 ? -1 : 1;
+        final int p = (incidentFace + 1) % 3, q = (incidentFace + 2) % 3;
+        final int iu = AXIS + 3 * incidentFace, pu = AXIS + 3 * p, qu = AXIS + 3 * q;
+        final double ie = incident[EXTENT + incidentFace] * facing;
+        final double pe = incident[EXTENT + p], qe = incident[EXTENT + q];
+
+        double[] polygon = new double[3 * 8];
+        double[] scratch = new double[3 * 8];
+        final double[][] signs = {{1, 1}, {-1, 1}, {-1, -1}, {1, -1}};
+        for (int k = 0; k < 4; ++k) {
+            for (int c = 0; c < 3; ++c) {
+                polygon[3 * k + c] = incident[CENTRE + c]
+                    + incident[iu + c] * ie
+                    + incident[pu + c] * pe * signs[k][0]
+                    + incident[qu + c] * qe * signs[k][1];
+            }
+        }
+
+        int count = 4;
+        for (int side = 1; side <= 2 && count > 0; ++side) {
+            final int axis = (face + side) % 3;
+            final int u = AXIS + 3 * axis;
+            final double ux = reference[u], uy = reference[u + 1], uz = reference[u + 2];
+            final double centre = reference[CENTRE] * ux + reference[CENTRE + 1] * uy + reference[CENTRE + 2] * uz;
+            final double extent = reference[EXTENT + axis];
+
+            count = clipPlane(polygon, count, ux, uy, uz, centre + extent, scratch);
+            double[] swap = polygon; polygon = scratch; scratch = swap;
+            count = clipPlane(polygon, count, -ux, -uy, -uz, extent - centre, scratch);
+            swap = polygon; polygon = scratch; scratch = swap;
+        }
+
+        final double plane = reference[CENTRE] * nx + reference[CENTRE + 1] * ny + reference[CENTRE + 2] * nz
+            + reference[EXTENT + face];
+        for (int k = 0; k < count; ++k) {
+            final double x = polygon[3 * k], y = polygon[3 * k + 1], z = polygon[3 * k + 2];
+            if (x * nx + y * ny + z * nz <= plane) contact.add(x, y, z);
+        }
+    }
+
+    /**
+     * Sutherland-Hodgman clipping of a convex polygon against the half-space {@code n·x <= offset}.
+     *
+     * @return The number of vertices written into {@code out}.
+     */
+    private static int clipPlane(final double[] in, final int count,
+                                 final double nx, final double ny, final double nz,
+                                 final double offset, final double[] out) {
+        int written = 0;
+        for (int k = 0; k < count; ++k) {
+            final int from = 3 * k, to = 3 * ((k + 1) % count);
+            final double df = in[from] * nx + in[from + 1] * ny + in[from + 2] * nz - offset;
+            final double dt = in[to] * nx + in[to + 1] * ny + in[to + 2] * nz - offset;
+
+            if (df <= 0) {
+                System.arraycopy(in, from, out, 3 * written++, 3);
+            }
+
+            if ((df < 0 && dt > 0) || (df > 0 && dt < 0)) {
+                final double t = df / (df - dt);
+                for (int c = 0; c < 3; ++c) out[3 * written + c] = in[from + c] + t * (in[to + c] - in[from + c]);
+                ++written;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Records the midpoint of the closest points between the two supporting edges along axes {@code i} and {@code j}.
+     * Those points lie {@code overlap} apart when the edges cross; if they lie much further apart, the edges only pass
+     * by each other and no point is recorded.
+     *
+     * @return Whether a point was recorded.
+     */
+    private static boolean edges(final double[] a, final double[] b, final int i, final int j,
+                                 final double nx, final double ny, final double nz,
+                                 final double overlap, final Contact contact) {
+        final double[] pa = new double[3], pb = new double[3];
+        for (int c = 0; c < 3; ++c) {
+            pa[c] = a[CENTRE + c];
+            pb[c] = b[CENTRE + c];
+        }
+
+        for (int t = 0; t < 3; ++t) {
+            if (t != i) {
+                final double s = dot(a, t, nx, ny, nz) > 0 ? 1 : -1;
+                for (int c = 0; c < 3; ++c) pa[c] += a[AXIS + 3 * t + c] * a[EXTENT + t] * s;
+            }
+
+            if (t != j) {
+                final double s = dot(b, t, nx, ny, nz) > 0 ? -1 : 1;
+                for (int c = 0; c < 3; ++c) pb[c] += b[AXIS + 3 * t + c] * b[EXTENT + t] * s;
+            }
+        }
+
+        final double[] st = new double[2];
+        closest(a, i, pa, b, j, pb, st);
+
+        final int u = AXIS + 3 * i, v = AXIS + 3 * j;
+        final double s = st[0], t = st[1];
+        final double dx = pa[0] + a[u] * s - pb[0] - b[v] * t;
+        final double dy = pa[1] + a[u + 1] * s - pb[1] - b[v + 1] * t;
+        final double dz = pa[2] + a[u + 2] * s - pb[2] - b[v + 2] * t;
+        if (sqrt(dx * dx + dy * dy + dz * dz) * RELATIVE_TOLERANCE > overlap) return false;
+
+        contact.add(
+            (pa[0] + a[u] * s + pb[0] + b[v] * t) / 2,
+            (pa[1] + a[u + 1] * s + pb[1] + b[v + 1] * t) / 2,
+            (pa[2] + a[u + 2] * s + pb[2] + b[v + 2] * t) / 2
+        );
+        return true;
+    }
+}
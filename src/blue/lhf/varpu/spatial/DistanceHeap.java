@@ -0,0 +1,83 @@
+package blue.lhf.varpu.spatial;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of primitive distance and index pairs.
+ */
+final class DistanceHeap {
+    private double[] keys;
+    private int[] values;
+    private int size;
+
+    DistanceHeap(final int capacity) {
+        this.keys = new double[Math.max(1, capacity)];
+        this.values = new int[Math.max(1, capacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    double peekKey() {
+        return keys[0];
+    }
+
+    void push(final double key, final int value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        int i = size++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) break;
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    /**
+     * Removes the smallest pair.
+     *
+     * @return The value of the removed pair.
+     */
+    int pop() {
+        final int top = values[0];
+        --size;
+        if (size > 0) sift(keys[size], values[size]);
+        return top;
+    }
+
+    /**
+     * Replaces the smallest pair with the given one, equivalent to but cheaper than a pop followed by a push.
+     */
+    void replace(final double key, final int value) {
+        sift(key, value);
+    }
+
+    private void sift(final double key, final int value) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[child + 1] < keys[child]) ++child;
+            if (keys[child] >= key) break;
+            keys[i] = keys[child];
+            values[i] = values[child];
+            i = child;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+    }
+}
@@ -0,0 +1,347 @@
+package blue.lhf.varpu.spatial;
+
+import blue.lhf.varpu.polyhedra.Box;
+import blue.lhf.varpu.vector.Ternion;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.*;
+
+/**
+ * <p>
+ * A static bounding volume hierarchy over a list of {@link Box}es, stored as flat arrays.
+ * </p>
+ * <p>
+ * The hierarchy is built in bulk as a linear BVH: every box is assigned the Morton code of its centre,
+ * the codes are radix-sorted in parallel, and each internal node is then derived independently from
+ * the sorted codes, so construction parallelises across all cores.
+ * </p>
+ * <p>
+ * A hierarchy over {@code n} boxes has {@code 2n - 1} nodes. Nodes {@code 0} to {@code n - 2} are internal,
+ * with node {@code 0} the root, and nodes {@code n - 1} to {@code 2n - 2} are leaves in Morton order.
+ * Each node has six entries in {@link LinearBvh#bounds()}, its minimum and maximum corners, each internal node
+ * has two entries in {@link LinearBvh#children()}, and each leaf has one entry in {@link LinearBvh#primitives()},
+ * the index of its box in the list the hierarchy was built from. The hierarchy holds no references to the boxes
+ * themselves, so it can be written and read back with {@link LinearBvh#write(DataOutput)} and
+ * {@link LinearBvh#read(DataInput)}.
+ * </p>
+ */
+public final class LinearBvh {
+    private static final int BITS = 10;
+    private static final int RADIX = 1 << BITS;
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final int size;
+    private final double[] bounds;
+    private final int[] children;
+    private final int[] primitives;
+
+    private LinearBvh(final int size, final double[] bounds, final int[] children, final int[] primitives) {
+        this.size = size;
+        this.bounds = bounds;
+        this.children = children;
+        this.primitives = primitives;
+    }
+
+    /**
+     * Builds a hierarchy over the given boxes.
+     */
+    public static LinearBvh build(final List<Box> boxes) {
+        final int n = boxes.size();
+        if (n == 0) return new LinearBvh(0, new double[0], new int[0], new int[0]);
+
+        final double[] leaves = new double[6 * n];
+        IntStream.range(0, n).parallel().forEach(i -> bound(boxes.get(i), leaves, 6 * i));
+
+        final double[] scene = IntStream.range(0, n).parallel().collect(
+            () -> new double[]{
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+            },
+            (bounds, i) -> {
+                for (int k = 0; k < 3; ++k) {
+                    final double centre = (leaves[6 * i + k] + leaves[6 * i + 3 + k]) / 2;
+                    bounds[k] = min(bounds[k], centre);
+                    bounds[3 + k] = max(bounds[3 + k], centre);
+                }
+            },
+            (one, two) -> {
+                for (int k = 0; k < 3; ++k) {
+                    one[k] = min(one[k], two[k]);
+                    one[3 + k] = max(one[3 + k], two[3 + k]);
+                }
+            }
+        );
+
+        // Keys hold the Morton code in the upper half and the box index in the lower half,
+        // which both carries the index through the sort and makes every key unique.
+        final long[] keys = new long[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int code = 0;
+            for (int k = 0; k < 3; ++k) {
+                final double extent = scene[3 + k] - scene[k];
+                final double centre = (leaves[6 * i + k] + leaves[6 * i + 3 + k]) / 2;
+                final int cell = extent > 0 ? (int) min(RADIX - 1, (centre - scene[k]) / extent * RADIX) : 0;
+                code |= spread(cell) << (2 - k);
+            }
+
+            keys[i] = (long) code << 32 | i;
+        });
+
+        sort(keys);
+
+        final int nodes = 2 * n - 1;
+        final double[] bounds = new double[6 * nodes];
+        final int[] children = new int[2 * (n - 1)];
+        final int[] primitives = new int[n];
+        final int[] parents = new int[nodes];
+        parents[0] = -1;
+
+        IntStream.range(0, n).parallel().forEach(k -> {
+            primitives[k] = (int) keys[k];
+            System.arraycopy(leaves, 6 * primitives[k], bounds, 6 * (n - 1 + k), 6);
+        });
+
+        IntStream.range(0, n - 1).parallel().forEach(i -> split(keys, i, children, parents));
+
+        // Each internal node is bounded by the second of its two children to finish.
+        final AtomicIntegerArray arrivals = new AtomicIntegerArray(max(0, n - 1));
+        IntStream.range(0, n).parallel().forEach(k -> {
+            int node = parents[n - 1 + k];
+            while (node >= 0 && arrivals.getAndIncrement(node) == 1) {
+                final int left = 6 * children[2 * node], right = 6 * children[2 * node + 1];
+                for (int c = 0; c < 3; ++c) {
+                    bounds[6 * node + c] = min(bounds[left + c], bounds[right + c]);
+                    bounds[6 * node + 3 + c] = max(bounds[left + 3 + c], bounds[right + 3 + c]);
+                }
+
+                node = parents[node];
+            }
+        });
+
+        return new LinearBvh(n, bounds, children, primitives);
+    }
+
+    /**
+     * Writes the axis-aligned bounds of a box into {@code out} at {@code offset}.
+     */
+    static void bound(final Box box, final double[] out, final int offset) {
+        final Ternion origin = box.origin();
+        out[offset] = out[offset + 3] = origin.x();
+        out[offset + 1] = out[offset + 4] = origin.y();
+        out[offset + 2] = out[offset + 5] = origin.z();
+
+        extend(box.a(), out, offset);
+        extend(box.b(), out, offset);
+        extend(box.c(), out, offset);
+    }
+
+    /**
+     * Grows the bounds at {@code offset} by one edge of a box, towards whichever corner the edge points.
+     */
+    private static void extend(final Ternion edge, final double[] out, final int offset) {
+        final double x = edge.x(), y = edge.y(), z = edge.z();
+        out[offset + (x < 0 ? 0 : 3)] += x;
+        out[offset + (y < 0 ? 1 : 4)] += y;
+        out[offset + (z < 0 ? 2 : 5)] += z;
+    }
+
+    /**
+     * Spreads the lower ten bits of the given value so that two zero bits separate each bit.
+     */
+    private static int spread(int value) {
+        value = (value | (value << 16)) & 0x030000FF;
+        value = (value | (value << 8)) & 0x0300F00F;
+        value = (value | (value << 4)) & 0x030C30C3;
+        value = (value | (value << 2)) & 0x09249249;
+        return value;
+    }
+
+    /**
+     * Sorts the keys by their upper 32 bits with a stable, parallel least-significant-digit radix sort.
+     */
+    private static void sort(final long[] keys) {
+        final int n = keys.length;
+        final int chunks = n < PARALLEL_THRESHOLD ? 1 : ForkJoinPool.getCommonPoolParallelism() * 4;
+        final int chunk = (n + chunks - 1) / chunks;
+        final int[][] offsets = new int[chunks][RADIX];
+
+        long[] from = keys, to = new long[n];
+        for (int shift = 32; shift < 32 + 3 * BITS; shift += BITS) {
+            final long[] source = from, target = to;
+            final int digit = shift;
+
+            IntStream.range(0, chunks).parallel().forEach(p -> {
+                final int[] histogram = offsets[p];
+                Arrays.fill(histogram, 0);
+                for (int i = p * chunk, end = min(n, i + chunk); i < end; ++i)
+                    ++histogram[(int) (source[i] >>> digit) & (RADIX - 1)];
+            });
+
+            int offset = 0;
+            for (int bucket = 0; bucket < RADIX; ++bucket) {
+                for (int p = 0; p < chunks; ++p) {
+                    final int count = offsets[p][bucket];
+                    offsets[p][bucket] = offset;
+                    offset += count;
+                }
+            }
+
+            IntStream.range(0, chunks).parallel().forEach(p -> {
+                final int[] next = offsets[p];
+                for (int i = p * chunk, end = min(n, i + chunk); i < end; ++i)
+                    target[next[(int) (source[i] >>> digit) & (RADIX - 1)]++] = source[i];
+            });
+
+            from = target;
+            to = source;
+        }
+
+        if (from != keys) System.arraycopy(from, 0, keys, 0, n);
+    }
+
+    /**
+     * @return The length of the common prefix of keys {@code i} and {@code j}, or -1 if {@code j} is out of range.
+     */
+    private static int delta(final long[] keys, final int i, final int j) {
+        if (j < 0 || j >= keys.length) return -1;
+        return Long.numberOfLeadingZeros(keys[i] ^ keys[j]);
+    }
+
+    /**
+     * Finds the range of keys covered by internal node {@code i} and the position at which it splits,
+     * as described by Karras in <i>Maximizing Parallelism in the Construction of BVHs, Octrees, and k-d Trees</i>.
+     */
+    private static void split(final long[] keys, final int i, final int[] children, final int[] parents) {
+        final int n = keys.length;
+        final int direction = delta(keys, i, i + 1) > delta(keys, i, i - 1) ? 1 : -1;
+        final int minimum = delta(keys, i, i - direction);
+
+        int limit = 2;
+        while (delta(keys, i, i + limit * direction) > minimum) limit <<= 1;
+
+        int length = 0;
+        for (int step = limit >> 1; step > 0; step >>= 1) {
+            if (delta(keys, i, i + (length + step) * direction) > minimum) length += step;
+        }
+
+        final int j = i + length * direction;
+        final int common = delta(keys, i, j);
+
+        int split = 0;
+        for (int step = (length + 1) >> 1; ; step = (step + 1) >> 1) {
+            if (delta(keys, i, i + (split + step) * direction) > common) split += step;
+            if (step == 1) break;
+        }
+
+        final int gamma = i + split * direction + min(direction, 0);
+        final int left = min(i, j) == gamma ? n - 1 + gamma : gamma;
+        final int right = max(i, j) == gamma + 1 ? n - 1 + gamma + 1 : gamma + 1;
+
+        children[2 * i] = left;
+        children[2 * i + 1] = right;
+        parents[left] = i;
+        parents[right] = i;
+    }
+
+    /**
+     * @return The number of boxes in this hierarchy.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of nodes in this hierarchy, {@code 2n - 1} for {@code n} boxes.
+     */
+    public int nodes() {
+        return size == 0 ? 0 : 2 * size - 1;
+    }
+
+    public boolean leaf(final int node) {
+        return node >= size - 1;
+    }
+
+    /**
+     * @return The backing array of node bounds, six entries per node.
+     */
+    public double[] bounds() {
+        return bounds;
+    }
+
+    /**
+     * @return The backing array of child indices, two entries per internal node.
+     */
+    public int[] children() {
+        return children;
+    }
+
+    /**
+     * @return The backing array of box indices, one entry per leaf.
+     */
+    public int[] primitives() {
+        return primitives;
+    }
+
+    /**
+     * @return The index of the box held by the given leaf node.
+     */
+    public int primitive(final int node) {
+        return primitives[node - (size - 1)];
+    }
+
+    /**
+     * Calls the given action with the index of every box whose axis-aligned bounds overlap the given bounds.
+     */
+    public void overlapping(final Ternion lower, final Ternion upper, final IntConsumer action) {
+        if (size == 0) return;
+
+        final double x0 = lower.x(), y0 = lower.y(), z0 = lower.z();
+        final double x1 = upper.x(), y1 = upper.y(), z1 = upper.z();
+
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            final int b = 6 * node;
+            if (bounds[b] > x1 || bounds[b + 1] > y1 || bounds[b + 2] > z1
+                || bounds[b + 3] < x0 || bounds[b + 4] < y0 || bounds[b + 5] < z0) continue;
+
+            if (leaf(node)) {
+                action.accept(primitive(node));
+                continue;
+            }
+
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = children[2 * node + 1];
+            stack[top++] = children[2 * node];
+        }
+    }
+
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (final double bound : bounds) out.writeDouble(bound);
+        for (final int child : children) out.writeInt(child);
+        for (final int primitive : primitives) out.writeInt(primitive);
+    }
+
+    public static LinearBvh read(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0) throw new IOException("Negative hierarchy size " + size);
+        if (size == 0) return new LinearBvh(0, new double[0], new int[0], new int[0]);
+
+        final double[] bounds = new double[6 * (2 * size - 1)];
+        final int[] children = new int[2 * (size - 1)];
+        final int[] primitives = new int[size];
+        for (int i = 0; i < bounds.length; ++i) bounds[i] = in.readDouble();
+        for (int i = 0; i < children.length; ++i) children[i] = in.readInt();
+        for (int i = 0; i < primitives.length; ++i) primitives[i] = in.readInt();
+        return new LinearBvh(size, bounds, children, primitives);
+    }
+}
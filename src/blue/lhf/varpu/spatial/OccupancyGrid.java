@@ -0,0 +1,145 @@
+package blue.lhf.varpu.spatial;
+
+import blue.lhf.varpu.vector.Ternion;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * <p>
+ * A dense, bit-packed occupancy grid of axis-aligned cubic cells.
+ * </p>
+ * <p>
+ * Cell {@code (x, y, z)} covers the cube whose minimum corner is {@code origin + size * (x, y, z)}.
+ * Cells are stored one bit each in a {@code long[]}, with {@code x} varying fastest, so that a row of cells
+ * along the x-axis occupies consecutive bits and can be filled a word at a time.
+ * </p>
+ * <p>
+ * Writes through {@link OccupancyGrid#fill(int, int, int, int)} and {@link OccupancyGrid#clear(int, int, int, int)}
+ * are atomic per word, so several threads may rasterise into the same grid at once.
+ * </p>
+ */
+public final class OccupancyGrid {
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Ternion origin;
+    private final double size;
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final long[] bits;
+
+    /**
+     * @param origin The minimum corner of the grid.
+     * @param size The edge length of a single cell.
+     * @param width The number of cells along the x-axis.
+     * @param height The number of cells along the y-axis.
+     * @param depth The number of cells along the z-axis.
+     */
+    public OccupancyGrid(final Ternion origin, final double size, final int width, final int height, final int depth) {
+        if (size <= 0) throw new IllegalArgumentException("Cell size must be positive, got " + size);
+        if (width <= 0 || height <= 0 || depth <= 0)
+            throw new IllegalArgumentException("Grid dimensions must be positive, got " + width + "x" + height + "x" + depth);
+
+        this.origin = origin;
+        this.size = size;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.bits = new long[(int) ((((long) width * height * depth) + 63) >>> 6)];
+    }
+
+    public Ternion origin() {
+        return origin;
+    }
+
+    public double size() {
+        return size;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * @return The backing bitset of this grid. Bit {@code x + width * (y + height * z)} is set iff cell
+     * {@code (x, y, z)} is occupied. Writing to the returned array writes to the grid.
+     */
+    public long[] bits() {
+        return bits;
+    }
+
+    public boolean occupied(final int x, final int y, final int z) {
+        if (!contains(x, y, z)) return false;
+        final long index = index(x, y, z);
+        return ((long) WORDS.getVolatile(bits, (int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    public void set(final int x, final int y, final int z, final boolean occupied) {
+        if (!contains(x, y, z)) throw new IndexOutOfBoundsException("Cell (" + x + ", " + y + ", " + z + ") is outside the grid");
+        update(y, z, x, x, occupied);
+    }
+
+    /**
+     * @return The number of occupied cells.
+     */
+    public long count() {
+        long count = 0;
+        for (final long word : bits) count += Long.bitCount(word);
+        return count;
+    }
+
+    /**
+     * Marks the cells {@code from..to} (inclusive) of the given row as occupied.
+     * The run is clamped to the grid, so cells outside it are ignored.
+     */
+    public void fill(final int y, final int z, final int from, final int to) {
+        checkRow(y, z);
+        update(y, z, Math.max(from, 0), Math.min(to, width - 1), true);
+    }
+
+    /**
+     * Marks the cells {@code from..to} (inclusive) of the given row as unoccupied.
+     * The run is clamped to the grid, so cells outside it are ignored.
+     */
+    public void clear(final int y, final int z, final int from, final int to) {
+        checkRow(y, z);
+        update(y, z, Math.max(from, 0), Math.min(to, width - 1), false);
+    }
+
+    private void checkRow(final int y, final int z) {
+        if (y < 0 || z < 0 || y >= height || z >= depth)
+            throw new IndexOutOfBoundsException("Row (" + y + ", " + z + ") is outside the grid");
+    }
+
+    private void update(final int y, final int z, final int from, final int to, final boolean occupied) {
+        if (from > to) return;
+        final long row = index(0, y, z);
+        final long first = row + from, last = row + to;
+
+        for (int word = (int) (first >>> 6); word <= (int) (last >>> 6); ++word) {
+            final long start = Math.max(first, (long) word << 6), end = Math.min(last, ((long) word << 6) + 63);
+            final int span = (int) (end - start) + 1;
+            final long mask = (span == 64 ? -1L : ((1L << span) - 1)) << start;
+
+            if (occupied) WORDS.getAndBitwiseOr(bits, word, mask);
+            else WORDS.getAndBitwiseAnd(bits, word, ~mask);
+        }
+    }
+
+    boolean contains(final int x, final int y, final int z) {
+        return x >= 0 && y >= 0 && z >= 0 && x < width && y < height && z < depth;
+    }
+
+    private long index(final int x, final int y, final int z) {
+        return x + (long) width * (y + (long) height * z);
+    }
+}
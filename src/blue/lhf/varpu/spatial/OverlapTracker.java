@@ -0,0 +1,240 @@
+package blue.lhf.varpu.spatial;
+
+import blue.lhf.varpu.polyhedra.Box;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Tracks which pairs of {@link Box}es overlap from one tick to the next, reporting when overlaps begin,
+ * persist, and end.
+ * </p>
+ * <p>
+ * Boxes are identified by keys, so a box may be replaced by a moved copy of itself under the same key between ticks.
+ * On every {@link OverlapTracker#update(Map, Listener)}, candidate pairs are found by sweeping the boxes'
+ * axis-aligned bounds along the x-axis, and each candidate is then tested with {@link Box#separatingAxis(Box, int)}.
+ * For pairs that did not overlap, the tracker remembers the axis that separated them and tests it first on the next
+ * tick; since boxes rarely move far between ticks, that axis usually still separates them.
+ * </p>
+ *
+ * @param <K> The type of the keys identifying boxes.
+ */
+public final class OverlapTracker<K> {
+    private final Map<K, Integer> ids = new HashMap<>();
+    private final Map<Integer, K> keys = new HashMap<>();
+    private final PairTable pairs = new PairTable();
+    private int next;
+    private int tick;
+
+    public OverlapTracker() {
+    }
+
+    /**
+     * Receives overlap events. For every pair, {@code first} is the key that was first seen by the tracker.
+     */
+    public interface Listener<K> {
+        default void begin(final K first, final K second) {
+        }
+
+        default void persist(final K first, final K second) {
+        }
+
+        default void end(final K first, final K second) {
+        }
+    }
+
+    /**
+     * @return Whether the boxes with the given keys overlapped on the last tick.
+     */
+    public boolean overlapping(final K one, final K two) {
+        final Integer a = ids.get(one), b = ids.get(two);
+        if (a == null || b == null) return false;
+        final int slot = pairs.find(key(Math.min(a, b), Math.max(a, b)));
+        return slot >= 0 && pairs.overlapping[slot];
+    }
+
+    /**
+     * Advances the tracker by one tick.
+     *
+     * @param boxes The boxes present this tick, by key. Keys missing from the map are treated as removed,
+     *              ending all their overlaps.
+     * @param listener The listener to report this tick's events to.
+     */
+    public void update(final Map<K, Box> boxes, final Listener<K> listener) {
+        ++tick;
+
+        final int n = boxes.size();
+        final int[] order = new int[n];
+        final Box[] sorted = new Box[n];
+        final double[] bounds = new double[6 * n];
+
+        // Each entry packs the upper half of the sortable bits of a box' minimum x into its upper half,
+        // and the box' index into its lower half, so that a primitive sort orders boxes by minimum x.
+        final long[] sweep = new long[n];
+
+        int i = 0;
+        for (final Map.Entry<K, Box> entry : boxes.entrySet()) {
+            final K key = entry.getKey();
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = next++;
+                ids.put(key, id);
+                keys.put(id, key);
+            }
+
+            order[i] = id;
+            sorted[i] = entry.getValue();
+            LinearBvh.bound(sorted[i], bounds, 6 * i);
+            sweep[i] = prefix(bounds[6 * i]) << 32 | i;
+            ++i;
+        }
+
+        Arrays.sort(sweep);
+
+        for (int s = 0; s < n; ++s) {
+            final int a = (int) sweep[s];
+            final long end = prefix(bounds[6 * a + 3]);
+            for (int t = s + 1; t < n; ++t) {
+                // Prefixes are monotonic in x, so a larger prefix means a box starting past this box' end.
+                if (sweep[t] >> 32 > end) break;
+
+                final int b = (int) sweep[t];
+                if (!overlaps(bounds, 6 * a, 6 * b)) continue;
+
+                final int first = order[a] < order[b] ? a : b, second = first == a ? b : a;
+                test(order[first], sorted[first], order[second], sorted[second], listener);
+            }
+        }
+
+        for (int slot = 0; slot < pairs.keys.length; ++slot) {
+            final long key = pairs.keys[slot];
+            if (key < 0 || pairs.ticks[slot] == tick) continue;
+
+            if (pairs.overlapping[slot]) listener.end(keys.get((int) (key >>> 32)), keys.get((int) key));
+            pairs.remove(slot);
+        }
+
+        if (ids.size() != n) {
+            ids.keySet().retainAll(boxes.keySet());
+            keys.values().retainAll(boxes.keySet());
+        }
+    }
+
+    private void test(final int first, final Box one, final int second, final Box two, final Listener<K> listener) {
+        final int slot = pairs.insert(key(first, second));
+        pairs.ticks[slot] = tick;
+        pairs.axes[slot] = one.separatingAxis(two, pairs.axes[slot]);
+
+        final boolean overlapping = pairs.axes[slot] < 0;
+        if (overlapping && pairs.overlapping[slot]) listener.persist(keys.get(first), keys.get(second));
+        else if (overlapping) listener.begin(keys.get(first), keys.get(second));
+        else if (pairs.overlapping[slot]) listener.end(keys.get(first), keys.get(second));
+        pairs.overlapping[slot] = overlapping;
+    }
+
+    private static boolean overlaps(final double[] bounds, final int a, final int b) {
+        for (int k = 0; k < 3; ++k) {
+            if (bounds[a + k] > bounds[b + 3 + k] || bounds[b + k] > bounds[a + 3 + k]) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The upper 32 bits of the given double's bits, transformed so that they order like the doubles themselves.
+     */
+    private static long prefix(final double value) {
+        final long bits = Double.doubleToLongBits(value);
+        return (bits ^ ((bits >> 63) & Long.MAX_VALUE)) >> 32;
+    }
+
+    private static long key(final int first, final int second) {
+        return (long) first << 32 | (second & 0xFFFFFFFFL);
+    }
+
+    /**
+     * An open-addressing table from pair keys to the state of pairs whose bounds overlapped on the last tick.
+     */
+    private static final class PairTable {
+        private static final long EMPTY = -1, REMOVED = -2;
+
+        private long[] keys = filled(16);
+        private int[] axes = new int[16];
+        private int[] ticks = new int[16];
+        private boolean[] overlapping = new boolean[16];
+        private int used;
+
+        private static long[] filled(final int capacity) {
+            final long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private int slot(final long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+        }
+
+        /**
+         * @return The slot holding the given key, or -1 if there is none.
+         */
+        int find(final long key) {
+            for (int slot = slot(key); ; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key) return slot;
+                if (keys[slot] == EMPTY) return -1;
+            }
+        }
+
+        /**
+         * @return The slot holding the given key, adding a fresh pair with no cached axis if there is none.
+         */
+        int insert(final long key) {
+            final int found = find(key);
+            if (found >= 0) return found;
+            if (2 * (used + 1) > keys.length) grow();
+
+            int slot = slot(key);
+            while (keys[slot] >= 0) slot = (slot + 1) & (keys.length - 1);
+            if (keys[slot] == EMPTY) ++used;
+
+            keys[slot] = key;
+            axes[slot] = -1;
+            ticks[slot] = 0;
+            overlapping[slot] = false;
+            return slot;
+        }
+
+        void remove(final int slot) {
+            keys[slot] = REMOVED;
+        }
+
+        /**
+         * Rehashes the live pairs, dropping removed slots and doubling the capacity if the table is still over half full.
+         */
+        private void grow() {
+            final long[] oldKeys = keys;
+            final int[] oldAxes = axes, oldTicks = ticks;
+            final boolean[] oldOverlapping = overlapping;
+
+            int live = 0;
+            for (final long key : oldKeys) if (key >= 0) ++live;
+            int capacity = oldKeys.length;
+            while (4 * (live + 1) > capacity) capacity *= 2;
+
+            keys = filled(capacity);
+            axes = new int[capacity];
+            ticks = new int[capacity];
+            overlapping = new boolean[capacity];
+            used = live;
+
+            for (int old = 0; old < oldKeys.length; ++old) {
+                if (oldKeys[old] < 0) continue;
+                int slot = slot(oldKeys[old]);
+                while (keys[slot] != EMPTY) slot = (slot + 1) & (capacity - 1);
+                keys[slot] = oldKeys[old];
+                axes[slot] = oldAxes[old];
+                ticks[slot] = oldTicks[old];
+                overlapping[slot] = oldOverlapping[old];
+            }
+        }
+    }
+}
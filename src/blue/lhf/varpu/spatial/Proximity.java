@@ -0,0 +1,203 @@
+package blue.lhf.varpu.spatial;
+
+import blue.lhf.varpu.polyhedra.Box;
+import blue.lhf.varpu.vector.Ternion;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+
+/**
+ * <p>
+ * Nearest-neighbour and radius queries over a list of {@link Box}es.
+ * </p>
+ * <p>
+ * Distances are measured between surfaces, as by {@link Box#distance(Ternion)} and {@link Box#distance(Box)},
+ * so a box containing or touching the query is at distance zero. Queries walk a {@link LinearBvh} over the boxes,
+ * visiting nodes closest-first and pruning every node whose bounds are further than the current answer, and keep
+ * their candidates in heaps of primitive distance and index pairs.
+ * </p>
+ * <p>
+ * All queries return indices into the list of boxes, ordered from nearest to furthest.
+ * </p>
+ */
+public final class Proximity {
+    private final List<Box> boxes;
+    private final LinearBvh bvh;
+
+    public Proximity(final List<Box> boxes) {
+        this(boxes, LinearBvh.build(boxes));
+    }
+
+    /**
+     * @param bvh A hierarchy built from the given boxes, for example one read back with {@link LinearBvh#read}.
+     */
+    public Proximity(final List<Box> boxes, final LinearBvh bvh) {
+        if (boxes.size() != bvh.size())
+            throw new IllegalArgumentException("Hierarchy holds " + bvh.size() + " boxes, but " + boxes.size() + " were given");
+
+        this.boxes = boxes;
+        this.bvh = bvh;
+    }
+
+    public LinearBvh bvh() {
+        return bvh;
+    }
+
+    /**
+     * @return The indices of the {@code k} boxes nearest to the given point.
+     */
+    public int[] nearest(final Ternion point, final int k) {
+        return nearest(new PointTarget(point), k);
+    }
+
+    /**
+     * @return The indices of the {@code k} boxes nearest to the given box.
+     */
+    public int[] nearest(final Box box, final int k) {
+        return nearest(new BoxTarget(box), k);
+    }
+
+    /**
+     * @return The indices of all boxes within {@code radius} of the given point.
+     */
+    public int[] within(final Ternion point, final double radius) {
+        return within(new PointTarget(point), radius);
+    }
+
+    /**
+     * @return The indices of all boxes within {@code radius} of the given box.
+     */
+    public int[] within(final Box box, final double radius) {
+        return within(new BoxTarget(box), radius);
+    }
+
+    private int[] nearest(final Target target, final int k) {
+        if (k <= 0 || bvh.size() == 0) return new int[0];
+
+        final double[] bounds = bvh.bounds();
+        final int[] children = bvh.children();
+        final DistanceHeap nodes = new DistanceHeap(64);
+        // Keyed by negated distance, so that the furthest of the current candidates is on top.
+        final DistanceHeap found = new DistanceHeap(min(k, bvh.size()));
+
+        nodes.push(target.bound(bounds, 0), 0);
+        while (!nodes.isEmpty()) {
+            final double bound = nodes.peekKey();
+            final int node = nodes.pop();
+            if (found.size() == k && bound > -found.peekKey()) break;
+
+            if (bvh.leaf(node)) {
+                final int index = bvh.primitive(node);
+                final double distance = target.distance(boxes.get(index));
+                if (found.size() < k) found.push(-distance, index);
+                else if (distance < -found.peekKey()) found.replace(-distance, index);
+                continue;
+            }
+
+            for (int side = 0; side < 2; ++side) {
+                final int child = children[2 * node + side];
+                final double childBound = target.bound(bounds, 6 * child);
+                if (found.size() < k || childBound <= -found.peekKey()) nodes.push(childBound, child);
+            }
+        }
+
+        final int[] result = new int[found.size()];
+        for (int i = result.length - 1; i >= 0; --i) result[i] = found.pop();
+        return result;
+    }
+
+    private int[] within(final Target target, final double radius) {
+        if (bvh.size() == 0) return new int[0];
+
+        final double[] bounds = bvh.bounds();
+        final int[] children = bvh.children();
+        final DistanceHeap found = new DistanceHeap(16);
+
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (target.bound(bounds, 6 * node) > radius) continue;
+
+            if (bvh.leaf(node)) {
+                final int index = bvh.primitive(node);
+                final double distance = target.distance(boxes.get(index));
+                if (distance <= radius) found.push(distance, index);
+                continue;
+            }
+
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+            stack[top++] = children[2 * node + 1];
+            stack[top++] = children[2 * node];
+        }
+
+        final int[] result = new int[found.size()];
+        for (int i = 0; i < result.length; ++i) result[i] = found.pop();
+        return result;
+    }
+
+    private interface Target {
+        /**
+         * @return A lower bound on the distance to anything within the bounds at {@code offset}.
+         */
+        double bound(double[] bounds, int offset);
+
+        double distance(Box box);
+    }
+
+    private static final class PointTarget implements Target {
+        private final Ternion point;
+        private final double x, y, z;
+
+        PointTarget(final Ternion point) {
+            this.point = point;
+            this.x = point.x();
+            this.y = point.y();
+            this.z = point.z();
+        }
+
+        @Override
+        public double bound(final double[] bounds, final int offset) {
+            final double dx = max(0, max(bounds[offset] - x, x - bounds[offset + 3]));
+            final double dy = max(0, max(bounds[offset + 1] - y, y - bounds[offset + 4]));
+            final double dz = max(0, max(bounds[offset + 2] - z, z - bounds[offset + 5]));
+            return sqrt(dx * dx + dy * dy + dz * dz);
+        }
+
+        @Override
+        public double distance(final Box box) {
+            return box.distance(point);
+        }
+    }
+
+    private static final class BoxTarget implements Target {
+        private final Box box;
+        private final double[] extent = new double[6];
+
+        BoxTarget(final Box box) {
+            this.box = box;
+            LinearBvh.bound(box, extent, 0);
+        }
+
+        @Override
+        public double bound(final double[] bounds, final int offset) {
+            double sq = 0;
+            for (int k = 0; k < 3; ++k) {
+                final double gap = max(0, max(bounds[offset + k] - extent[3 + k], extent[k] - bounds[offset + 3 + k]));
+                sq += gap * gap;
+            }
+
+            return sqrt(sq);
+        }
+
+        @Override
+        public double distance(final Box other) {
+            return box.distance(other);
+        }
+    }
+}
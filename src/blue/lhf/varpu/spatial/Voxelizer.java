@@ -0,0 +1,347 @@
+package blue.lhf.varpu.spatial;
+
+import blue.lhf.varpu.polyhedra.Box;
+import blue.lhf.varpu.vector.Ternion;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static blue.lhf.varpu.polyhedra.Box.FRAME;
+import static blue.lhf.varpu.polyhedra.Box.FRAME_AXES;
+import static blue.lhf.varpu.polyhedra.Box.FRAME_CENTRE;
+import static blue.lhf.varpu.polyhedra.Box.FRAME_EXTENTS;
+import static java.lang.Math.*;
+
+/**
+ * <p>
+ * Rasterises {@link Box}es into an {@link OccupancyGrid}.
+ * </p>
+ * <p>
+ * By default, a cell is occupied by a box if any part of the box overlaps it, so boxes thinner than a cell still
+ * leave a wall of occupied cells behind. Each box is scan-converted one row of cells at a time: for every row
+ * crossing the box' axis-aligned bounds, the run of cells overlapping the box is found analytically and filled a
+ * word at a time, so the work per box is bounded by the rows of its bounds rather than by its volume in cells.
+ * The run is conservative: it may include cells near the box' edges and corners that only touch its bounds.
+ * With {@link Coverage#CENTRE}, a cell is instead only occupied if its centre lies within the box.
+ * </p>
+ * <p>
+ * Boxes are referred to by the handles returned when they are added. The voxelizer keeps every box' bounds in a
+ * coarse bucket grid, so that moving or removing a box only re-rasterises the boxes near its old bounds.
+ * Bulk insertion rasterises boxes in parallel; the remaining operations are not safe to call concurrently
+ * with each other.
+ * </p>
+ */
+public final class Voxelizer {
+    /**
+     * The rule deciding which cells a box occupies.
+     */
+    public enum Coverage {
+        /**
+         * Cells overlapping the box.
+         */
+        OVERLAP,
+        /**
+         * Cells whose centres lie within the box.
+         */
+        CENTRE
+    }
+
+    /**
+     * The edge length of a bucket of the box index, in cells.
+     */
+    private static final int BUCKET = 16;
+
+    private final OccupancyGrid grid;
+    private final Coverage coverage;
+
+    private final int bucketsX, bucketsY;
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+
+    private Box[] boxes = new Box[16];
+    private double[] frames = new double[16 * FRAME];
+    private int[] regions = new int[16 * 6];
+    private int[] stamps = new int[16];
+    private int stamp;
+
+    private int[] free = new int[16];
+    private int freeCount;
+    private int next;
+
+    public Voxelizer(final OccupancyGrid grid) {
+        this(grid, Coverage.OVERLAP);
+    }
+
+    public Voxelizer(final OccupancyGrid grid, final Coverage coverage) {
+        this.grid = grid;
+        this.coverage = coverage;
+        this.bucketsX = (grid.width() + BUCKET - 1) / BUCKET;
+        this.bucketsY = (grid.height() + BUCKET - 1) / BUCKET;
+        final int bucketsZ = (grid.depth() + BUCKET - 1) / BUCKET;
+        this.buckets = new int[bucketsX * bucketsY * bucketsZ][];
+        this.bucketSizes = new int[buckets.length];
+    }
+
+    public OccupancyGrid grid() {
+        return grid;
+    }
+
+    public Coverage coverage() {
+        return coverage;
+    }
+
+    /**
+     * @return The box with the given handle, or {@code null} if the handle is not in use.
+     */
+    public Box box(final int handle) {
+        return handle >= 0 && handle < next ? boxes[handle] : null;
+    }
+
+    /**
+     * @return The handle of the added box.
+     */
+    public int add(final Box box) {
+        final int handle = allocate();
+        store(handle, box);
+        index(handle);
+        rasterise(handle, full());
+        return handle;
+    }
+
+    /**
+     * Rasterises all the given boxes, in parallel.
+     *
+     * @return The handles of the added boxes, in order.
+     */
+    public int[] addAll(final List<Box> added) {
+        final int[] handles = new int[added.size()];
+        for (int i = 0; i < handles.length; ++i) handles[i] = allocate();
+
+        IntStream.range(0, handles.length).parallel().forEach(i -> store(handles[i], added.get(i)));
+        for (final int handle : handles) index(handle);
+
+        final int[] full = full();
+        IntStream.of(handles).parallel().forEach(handle -> rasterise(handle, full));
+        return handles;
+    }
+
+    /**
+     * Removes the box with the given handle, clearing the cells it covered unless they are still covered by another box.
+     *
+     * @return Whether the handle was in use.
+     */
+    public boolean remove(final int handle) {
+        if (box(handle) == null) return false;
+
+        final int[] region = Arrays.copyOfRange(regions, 6 * handle, 6 * handle + 6);
+        unindex(handle);
+        boxes[handle] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = handle;
+
+        refresh(region);
+        return true;
+    }
+
+    /**
+     * Replaces the box with the given handle by {@code to}, updating only the cells covered by either box.
+     *
+     * @return Whether the handle was in use.
+     */
+    public boolean move(final int handle, final Box to) {
+        if (box(handle) == null) return false;
+
+        final int[] region = Arrays.copyOfRange(regions, 6 * handle, 6 * handle + 6);
+        unindex(handle);
+        store(handle, to);
+        index(handle);
+
+        refresh(region);
+        rasterise(handle, full());
+        return true;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) return free[--freeCount];
+        if (next == boxes.length) {
+            final int capacity = boxes.length * 2;
+            boxes = Arrays.copyOf(boxes, capacity);
+            frames = Arrays.copyOf(frames, capacity * FRAME);
+            regions = Arrays.copyOf(regions, capacity * 6);
+            stamps = Arrays.copyOf(stamps, capacity);
+        }
+
+        return next++;
+    }
+
+    private void store(final int handle, final Box box) {
+        boxes[handle] = box;
+        box.frame(frames, FRAME * handle);
+        region(handle);
+    }
+
+    /**
+     * Clears the given region of cells and rasterises every remaining box overlapping it back into the region.
+     */
+    private void refresh(final int[] region) {
+        if (empty(region, 0)) return;
+        for (int z = region[4]; z <= region[5]; ++z)
+            for (int y = region[2]; y <= region[3]; ++y)
+                grid.clear(y, z, region[0], region[1]);
+
+        ++stamp;
+        int[] candidates = new int[16];
+        int count = 0;
+        for (int z = region[4] / BUCKET; z <= region[5] / BUCKET; ++z) {
+            for (int y = region[2] / BUCKET; y <= region[3] / BUCKET; ++y) {
+                for (int x = region[0] / BUCKET; x <= region[1] / BUCKET; ++x) {
+                    final int bucket = bucket(x, y, z);
+                    for (int i = 0; i < bucketSizes[bucket]; ++i) {
+                        final int handle = buckets[bucket][i];
+                        if (stamps[handle] == stamp || !overlaps(regions, 6 * handle, region)) continue;
+                        stamps[handle] = stamp;
+                        if (count == candidates.length) candidates = Arrays.copyOf(candidates, count * 2);
+                        candidates[count++] = handle;
+                    }
+                }
+            }
+        }
+
+        IntStream.of(Arrays.copyOf(candidates, count)).parallel().forEach(handle -> rasterise(handle, region));
+    }
+
+    private void index(final int handle) {
+        final int r = 6 * handle;
+        if (empty(regions, r)) return;
+        for (int z = regions[r + 4] / BUCKET; z <= regions[r + 5] / BUCKET; ++z) {
+            for (int y = regions[r + 2] / BUCKET; y <= regions[r + 3] / BUCKET; ++y) {
+                for (int x = regions[r] / BUCKET; x <= regions[r + 1] / BUCKET; ++x) {
+                    final int bucket = bucket(x, y, z);
+                    if (buckets[bucket] == null) buckets[bucket] = new int[4];
+                    else if (bucketSizes[bucket] == buckets[bucket].length)
+                        buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+                    buckets[bucket][bucketSizes[bucket]++] = handle;
+                }
+            }
+        }
+    }
+
+    private void unindex(final int handle) {
+        final int r = 6 * handle;
+        if (empty(regions, r)) return;
+        for (int z = regions[r + 4] / BUCKET; z <= regions[r + 5] / BUCKET; ++z) {
+            for (int y = regions[r + 2] / BUCKET; y <= regions[r + 3] / BUCKET; ++y) {
+                for (int x = regions[r] / BUCKET; x <= regions[r + 1] / BUCKET; ++x) {
+                    final int bucket = bucket(x, y, z);
+                    final int[] handles = buckets[bucket];
+                    for (int i = 0; i < bucketSizes[bucket]; ++i) {
+                        if (handles[i] != handle) continue;
+                        handles[i] = handles[--bucketSizes[bucket]];
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private int bucket(final int x, final int y, final int z) {
+        return x + bucketsX * (y + bucketsY * z);
+    }
+
+    private int[] full() {
+        return new int[]{0, grid.width() - 1, 0, grid.height() - 1, 0, grid.depth() - 1};
+    }
+
+    private static boolean empty(final int[] regions, final int r) {
+        return regions[r] > regions[r + 1] || regions[r + 2] > regions[r + 3] || regions[r + 4] > regions[r + 5];
+    }
+
+    private static boolean overlaps(final int[] regions, final int r, final int[] region) {
+        for (int k = 0; k < 3; ++k) {
+            if (regions[r + 2 * k] > region[2 * k + 1] || region[2 * k] > regions[r + 2 * k + 1]) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes the inclusive cell range {@code {x0, x1, y0, y1, z0, z1}} that the given box may occupy under this
+     * voxelizer's coverage, clamped to the grid. The range is empty if the box lies outside the grid.
+     */
+    private void region(final int handle) {
+        final int f = FRAME * handle, r = 6 * handle;
+        final int[] limits = {grid.width(), grid.height(), grid.depth()};
+        final Ternion origin = grid.origin();
+        final double[] corner = {origin.x(), origin.y(), origin.z()};
+        final double size = grid.size();
+
+        for (int k = 0; k < 3; ++k) {
+            double reach = 0;
+            for (int m = 0; m < 3; ++m) {
+                reach += frames[f + FRAME_EXTENTS + m] * abs(frames[f + FRAME_AXES + 3 * m + k]);
+            }
+
+            final double lower = (frames[f + FRAME_CENTRE + k] - reach - corner[k]) / size;
+            final double upper = (frames[f + FRAME_CENTRE + k] + reach - corner[k]) / size;
+            final double from, to;
+            if (coverage == Coverage.OVERLAP) {
+                from = floor(lower);
+                to = max(from, ceil(upper) - 1);
+            } else {
+                from = ceil(lower - 0.5);
+                to = floor(upper - 0.5);
+            }
+
+            regions[r + 2 * k] = (int) max(0, min(limits[k], from));
+            regions[r + 2 * k + 1] = (int) min(limits[k] - 1, max(-1, to));
+        }
+    }
+
+    private void rasterise(final int handle, final int[] clip) {
+        final int f = FRAME * handle, r = 6 * handle;
+        final int x0 = max(regions[r], clip[0]), x1 = min(regions[r + 1], clip[1]);
+        final int y0 = max(regions[r + 2], clip[2]), y1 = min(regions[r + 3], clip[3]);
+        final int z0 = max(regions[r + 4], clip[4]), z1 = min(regions[r + 5], clip[5]);
+        if (x0 > x1) return;
+
+        final Ternion origin = grid.origin();
+        final double size = grid.size();
+        final double startX = origin.x() + size * 0.5 - frames[f + FRAME_CENTRE];
+
+        // Under overlap coverage, each slab is widened by the projection of half a cell onto its axis.
+        final double[] widths = new double[3];
+        for (int m = 0; m < 3; ++m) {
+            final int u = f + FRAME_AXES + 3 * m;
+            widths[m] = frames[f + FRAME_EXTENTS + m];
+            if (coverage == Coverage.OVERLAP)
+                widths[m] += size / 2 * (abs(frames[u]) + abs(frames[u + 1]) + abs(frames[u + 2]));
+        }
+
+        for (int z = z0; z <= z1; ++z) {
+            final double dz = origin.z() + size * (z + 0.5) - frames[f + FRAME_CENTRE + 2];
+            for (int y = y0; y <= y1; ++y) {
+                final double dy = origin.y() + size * (y + 0.5) - frames[f + FRAME_CENTRE + 1];
+
+                // Along the row, the projection onto each box axis is linear in x: base + x * slope.
+                double lo = x0, hi = x1;
+                for (int m = 0; m < 3 && lo <= hi; ++m) {
+                    final int u = f + FRAME_AXES + 3 * m;
+                    final double base = startX * frames[u] + dy * frames[u + 1] + dz * frames[u + 2];
+                    final double slope = size * frames[u];
+                    final double width = widths[m];
+
+                    if (slope == 0) {
+                        if (abs(base) > width) hi = lo - 1;
+                        continue;
+                    }
+
+                    final double one = (-width - base) / slope, two = (width - base) / slope;
+                    lo = max(lo, min(one, two));
+                    hi = min(hi, max(one, two));
+                }
+
+                if (lo <= hi) grid.fill(y, z, (int) ceil(lo), (int) floor(hi));
+            }
+        }
+    }
+}
@@ -42,7 +42,7 @@ public record Ternion(Double x, Double y, Double z) implements RVector<Ternion>
         return ternion(
             this.y * that.z - this.z * that.y,
             this.z * that.x - this.x * that.z,
-            this.x * that.y - that.y * this.z
+            this.x * that.y - this.y * that.x
         );
     }
 
@@ -1,4 +1,5 @@
 module blue.lhf.varpu {
     exports blue.lhf.varpu.polyhedra;
+    exports blue.lhf.varpu.spatial;
     exports blue.lhf.varpu.vector;
 }
\ No newline at end of file
@@ -1,14 +1,29 @@
 package blue.lhf.varpu.tests;
 
 import blue.lhf.varpu.polyhedra.Box;
+import blue.lhf.varpu.polyhedra.Contact;
+import blue.lhf.varpu.polyhedra.OrientedBox;
+import blue.lhf.varpu.spatial.LinearBvh;
+import blue.lhf.varpu.spatial.OccupancyGrid;
+import blue.lhf.varpu.spatial.OverlapTracker;
+import blue.lhf.varpu.spatial.Proximity;
+import blue.lhf.varpu.spatial.Voxelizer;
 import org.junit.jupiter.api.Test;
 
+import java.io.*;
+import java.util.*;
+
 import static blue.lhf.varpu.polyhedra.Box.box;
 import static blue.lhf.varpu.vector.Quaternion.euler;
 import static blue.lhf.varpu.vector.Ternion.ternion;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 import static java.lang.Math.toRadians;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SuppressWarnings("unused")
@@ -42,6 +57,192 @@ class VarpuTest {
         assertTrue(box.intersects(other), "Failed intersection that should've passed");
     }
 
+    @Test
+    void testContacts() {
+        final Box box = box(ternion(0, 0, 0), ternion(2, 2, 2));
+        final Box other = box(ternion(1.5, 0.5, 0.5), ternion(3.5, 1.5, 1.5));
+        final Contact contact = new Contact(true);
+
+        assertTrue(box.intersects(other, contact), "Failed intersection that should've passed");
+        assertEquals(0, contact.axis(), "Contact found the wrong axis");
+        assertEquals(0.5, contact.depth(), 1E-9, "Contact miscomputed penetration depth");
+        assertEquals(0, contact.normal().distance(ternion(1, 0, 0)), 1E-9, "Contact normal was incorrect");
+        assertEquals(4, contact.size(), "Face contact should have four points");
+
+        assertFalse(box.intersects(other.offset(ternion(1, 0, 0)), contact), "Passed intersection that should've failed");
+        assertEquals(-1, contact.axis(), "Contact was not reset");
+
+        // The tilted box' face is within the reference bias of the other's, but the other's is the true minimum
+        final Box tilted = Box.boxAt(ternion(1, 1, 1), ternion(2, 2, 2), euler(toRadians(3), 0, 0));
+        final Box aligned = box(ternion(1.9, 0, 0), ternion(3.9, 2, 2));
+        assertTrue(tilted.intersects(aligned, contact), "Failed intersection that should've passed");
+        assertEquals(3, contact.axis(), "Contact did not report the axis of least penetration");
+        assertEquals(1 + cos(toRadians(3)) + sin(toRadians(3)) - 1.9, contact.depth(), 1E-9,
+            "Contact did not report the least penetration depth");
+        assertEquals(0, contact.normal().distance(ternion(1, 0, 0)), 1E-9, "Contact normal was incorrect");
+
+        // Two cubes standing on edges that cross at right angles
+        final Box ridge = Box.boxAt(ternion(0, 0, 0), ternion(2, 2, 2), euler(0, 0, toRadians(45)));
+        final Box crossing = Box.boxAt(ternion(0, 0, 2 * sqrt(2) - 0.1), ternion(2, 2, 2), euler(0, toRadians(45), 0));
+        assertTrue(ridge.intersects(crossing), "Failed intersection that should've passed");
+        assertTrue(ridge.intersects(crossing, contact), "Contact query disagreed with the intersection test");
+        assertTrue(contact.axis() >= 6, "Contact found a face axis for crossing edges");
+        assertEquals(0.1, contact.depth(), 1E-9, "Contact miscomputed penetration depth");
+        assertEquals(0, contact.normal().distance(ternion(0, 0, 1)), 1E-9, "Contact normal was incorrect");
+        assertEquals(1, contact.size(), "Edge contact should have one point");
+        assertEquals(0, contact.point(0).distance(ternion(0, 0, sqrt(2) - 0.05)), 1E-9,
+            "Edge contact point was incorrect");
+
+        final Box lifted = crossing.offset(ternion(0, 0, 0.2));
+        assertFalse(ridge.intersects(lifted), "Passed intersection that should've failed");
+        assertFalse(ridge.intersects(lifted, contact), "Contact query disagreed with the intersection test");
+    }
+
+    @Test
+    void testVoxelization() {
+        final OccupancyGrid grid = new OccupancyGrid(ternion(0, 0, 0), 1, 100, 10, 10);
+        final Voxelizer voxelizer = new Voxelizer(grid);
+        final Box box = box(ternion(0, 0, 0), ternion(80, 2, 3));
+
+        final int handle = voxelizer.add(box);
+        assertEquals(80 * 2 * 3, grid.count(), "Voxelizer covered the wrong number of cells");
+        assertTrue(grid.occupied(79, 1, 2), "Voxelizer missed a cell inside the box");
+        assertFalse(grid.occupied(80, 1, 2), "Voxelizer filled a cell outside the box");
+
+        voxelizer.move(handle, box.offset(ternion(10, 5, 5)));
+        assertEquals(80 * 2 * 3, grid.count(), "Moving a box changed its cell count");
+        assertFalse(grid.occupied(0, 0, 0), "Moving a box left its old cells occupied");
+        assertTrue(grid.occupied(10, 5, 5), "Moving a box did not occupy its new cells");
+    }
+
+    @Test
+    void testThinVoxelization() {
+        final Box wall = box(ternion(0, 0, 4.6), ternion(10, 10, 4.9));
+
+        final OccupancyGrid grid = new OccupancyGrid(ternion(0, 0, 0), 1, 10, 10, 10);
+        new Voxelizer(grid).add(wall);
+        assertEquals(100, grid.count(), "Voxelizer dropped a box thinner than a cell");
+        assertTrue(grid.occupied(3, 7, 4), "Voxelizer missed a cell the wall passes through");
+
+        final OccupancyGrid sampled = new OccupancyGrid(ternion(0, 0, 0), 1, 10, 10, 10);
+        new Voxelizer(sampled, Voxelizer.Coverage.CENTRE).add(wall);
+        assertEquals(0, sampled.count(), "Centre coverage filled cells whose centres lie outside the wall");
+    }
+
+    @Test
+    void testGridBounds() {
+        final OccupancyGrid grid = new OccupancyGrid(ternion(0, 0, 0), 1, 4, 4, 4);
+        grid.fill(0, 0, 2, 5);
+        assertEquals(2, grid.count(), "Filling past the end of a row changed the wrong number of cells");
+        assertFalse(grid.occupied(0, 1, 0), "Filling past the end of a row spilled into the next row");
+
+        grid.fill(0, 0, -1, 1);
+        assertEquals(4, grid.count(), "Filling before the start of a row changed the wrong number of cells");
+        assertThrows(IndexOutOfBoundsException.class, () -> grid.fill(4, 0, 0, 3), "Filled a row outside the grid");
+        assertThrows(IndexOutOfBoundsException.class, () -> grid.clear(0, -1, 0, 3), "Cleared a row outside the grid");
+    }
+
+    @Test
+    void testHierarchy() throws IOException {
+        final List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) boxes.add(box(ternion(i, i % 10, 0), ternion(i + 0.5, i % 10 + 0.5, 0.5)));
+
+        final LinearBvh built = LinearBvh.build(boxes);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        built.write(new DataOutputStream(bytes));
+        final LinearBvh bvh = LinearBvh.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(199, bvh.nodes(), "Hierarchy has the wrong number of nodes");
+
+        final Set<Integer> found = new TreeSet<>();
+        bvh.overlapping(ternion(40, 0, 0), ternion(52.2, 2.2, 1), found::add);
+        assertEquals(Set.of(40, 41, 42, 50, 51, 52), found, "Hierarchy found the wrong boxes");
+    }
+
+    @Test
+    void testProximity() {
+        final List<Box> boxes = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) boxes.add(box(ternion(3 * i, 0, 0), ternion(3 * i + 1, 1, 1)));
+        boxes.add(box(ternion(41, 0, 0), ternion(100, 1, 1)));
+
+        assertEquals(1, boxes.get(1).distance(ternion(5, 0.5, 0.5)), 1E-9, "Box miscomputed point distance");
+        assertEquals(2, boxes.get(0).distance(boxes.get(1)), 1E-9, "Box miscomputed box distance");
+
+        final Proximity proximity = new Proximity(boxes);
+        assertArrayEquals(new int[]{10, 9, 8}, proximity.nearest(ternion(40, 0.5, 0.5), 3), "Proximity found the wrong neighbours");
+        assertArrayEquals(new int[]{4, 5}, proximity.within(ternion(13.5, 0.5, 0.5), 1.6), "Proximity found the wrong boxes in range");
+        assertArrayEquals(new int[]{10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0}, proximity.nearest(ternion(40, 0.5, 0.5), Integer.MAX_VALUE),
+            "Proximity failed to sort all boxes");
+    }
+
+    @Test
+    void testOverlapTracking() {
+        final Box box = box(ternion(0, 0, 0), ternion(1, 1, 1));
+        final Map<String, Box> boxes = new LinkedHashMap<>();
+        boxes.put("still", box);
+        boxes.put("moving", box.offset(ternion(2, 0, 0)));
+
+        final List<String> events = new ArrayList<>();
+        final OverlapTracker.Listener<String> listener = new OverlapTracker.Listener<>() {
+            @Override
+            public void begin(final String first, final String second) {
+                events.add("begin " + first + " " + second);
+            }
+
+            @Override
+            public void persist(final String first, final String second) {
+                events.add("persist " + first + " " + second);
+            }
+
+            @Override
+            public void end(final String first, final String second) {
+                events.add("end " + first + " " + second);
+            }
+        };
+
+        final OverlapTracker<String> tracker = new OverlapTracker<>();
+        for (final double x : new double[]{2, 0.5, 0.4, 1.5}) {
+            boxes.put("moving", box.offset(ternion(x, 0, 0)));
+            tracker.update(boxes, listener);
+        }
+
+        assertEquals(List.of("begin still moving", "persist still moving", "end still moving"), events,
+            "Tracker reported the wrong events");
+        assertFalse(tracker.overlapping("still", "moving"), "Tracker kept an ended overlap");
+
+        // Thin diagonal slabs whose bounds overlap throughout, but which only overlap when close along their normal
+        final Box slab = Box.boxAt(ternion(0, 0, 0), ternion(4, 0.2, 0.2), euler(toRadians(45), 0, 0));
+        final Map<String, Box> slabs = new LinkedHashMap<>();
+        slabs.put("still", slab);
+
+        events.clear();
+        final OverlapTracker<String> rotated = new OverlapTracker<>();
+        for (final double offset : new double[]{0.5, 0.1, 0.1, 0.5}) {
+            slabs.put("moving", slab.offset(ternion(-offset / sqrt(2), offset / sqrt(2), 0)));
+            rotated.update(slabs, listener);
+            if (events.isEmpty()) {
+                assertFalse(rotated.overlapping("still", "moving"), "Tracker reported separated slabs as overlapping");
+            }
+        }
+
+        assertEquals(List.of("begin still moving", "persist still moving", "end still moving"), events,
+            "Tracker reported the wrong events for slabs with overlapping bounds");
+        assertFalse(rotated.overlapping("still", "moving"), "Tracker kept an ended overlap");
+    }
+
+    @Test
+    void testOrientedBoxes() {
+        final Box box = box(ternion(0, 0, 0), ternion(1, 2, 3), euler(0.3, 0.2, 0.1));
+        final OrientedBox oriented = OrientedBox.orientedBox(box);
+
+        assertTrue(oriented.toBox().isSimilar(box, 1E-9), "Oriented box did not convert back losslessly");
+        assertTrue(oriented.rotated(euler(0, 0, toRadians(45))).toBox()
+            .isSimilar(box.rotated(euler(0, 0, toRadians(45))), 1E-9), "Oriented box rotated differently to box");
+
+        final Box other = box.offset(ternion(0.5, 0, 0));
+        assertTrue(oriented.intersects(OrientedBox.orientedBox(other)), "Failed intersection that should've passed");
+        assertFalse(oriented.intersects(other.offset(ternion(10, 0, 0))), "Passed intersection that should've failed");
+    }
+
     @Test
     void testQuaternions() {
         assertEquals(euler(0, 0, toRadians(-45))
@@ -49,6 +250,14 @@ class VarpuTest {
             "Quaternion angle was incorrect");
     }
 
+    @Test
+    void testCrossProduct() {
+        assertEquals(0, ternion(0, 1, 0).cross(ternion(1, 0, 0)).distance(ternion(0, 0, -1)), 1E-12,
+            "Ternions miscomputed cross product");
+        assertEquals(0, ternion(1, 2, 3).cross(ternion(4, 5, 6)).distance(ternion(-3, 6, -3)), 1E-12,
+            "Ternions miscomputed cross product");
+    }
+
     public void testDistance() {
         assertEquals(ternion(-1.0, -1.0, -1.0)
                 .distance(ternion(1.0, 1.0, 1.0)), sqrt(12),